@@ -0,0 +1,118 @@
+package testfieldgame;
+
+/**
+ * Incremental hash of one quadrant's field, which is changed together with the field 
+ * instead of being computed from scratch.
+ * It is Not Thread Safe at all. It belongs to one quadrant, like its fieldQuad,
+ * and is passed from one FieldQuadrant thread to its clone in {@link FieldQuadrant#getNewCloneWithOldLinks}.
+ * <p>
+ * The hash of a field is a sum of val * X^i * Y[j] over all cells (i, j), computed modulo 2^64 (usual long overflow).
+ * X is odd, so it has an inverse modulo 2^64, and Y[j] are fixed pseudo random numbers.
+ * Changing one cell changes one term, so the hash is renewed in O(1) per cell.
+ * Moving all "ones" one row to the left multiplies each term by the inverse of X, 
+ * so the row kernel renews the hash in O(1) after it has removed row 0.
+ * This is why we don't use XOR of random keys per cell (Zobrist hashing): it could not follow the shift of all rows.
+ * <p>
+ * Quadrant hashes are combined into the global field hash in {@link Game#getFieldHash} 
+ * via {@link FieldHash#shiftRows}, so the global hash does not depend on how the field is divided into quadrants.
+ * @author Vladislav Ustinov
+ */
+public final class FieldHash {
+
+    /**
+     * X from the formula above. Odd.
+     */
+    private static final long X = 0x9E3779B97F4A7C15L;
+    
+    /**
+     * Inverse of X modulo 2^64, i.e. X * X_INVERSE = 1.
+     */
+    private static final long X_INVERSE = inverse(X);
+
+    /**
+     * powX[i] = X^i for each row i of the quadrant.
+     */
+    private final long[] powX;
+    
+    /**
+     * randomY[j] = Y[j] for each position j in a row.
+     */
+    private final long[] randomY;
+
+    private long val;
+
+    public FieldHash(int nX, int nY) {
+        powX = new long[nX];
+        randomY = new long[nY];
+        
+        long p = 1;
+        for (int i = 0; i < nX; i++) {
+            powX[i] = p;
+            p *= X;
+        }
+        for (int j = 0; j < nY; j++) {
+            randomY[j] = mix(j);
+        }
+    }
+
+    /**
+     * Renews the hash when cell (i, j) is changed.
+     * @param i - row of the cell.
+     * @param j - position in the row.
+     * @param oldVal - value of the cell before the change.
+     * @param newVal - value of the cell after the change.
+     */
+    public void change(int i, int j, int oldVal, int newVal) {
+        if (oldVal != newVal)
+            val += (newVal - (long) oldVal) * powX[i] * randomY[j];
+    }
+
+    /**
+     * Renews the hash when all rows are moved one row to the left, i.e. row i becomes row i-1.
+     * Row 0 should be removed via {@link FieldHash#change} beforehand.
+     */
+    public void shiftRowsLeft() {
+        val *= X_INVERSE;
+    }
+
+    public long get() {
+        return val;
+    }
+
+    /**
+     * Moves hash of a quadrant by some rows to the right. 
+     * Used to make hashes of quadrants comparable in the global field.
+     * @param hash - hash of a quadrant.
+     * @param rows - amount of rows before the quadrant in the global field.
+     * @return hash of the same quadrant lying rows to the right.
+     */
+    public static long shiftRows(long hash, int rows) {
+        long p = 1, x = X;
+        for (int n = rows; n > 0; n >>= 1) {
+            if ((n & 1) != 0)
+                p *= x;
+            x *= x;
+        }
+        return hash * p;
+    }
+
+    /**
+     * Newton iteration for inverse modulo 2^64. Each step doubles the amount of correct low bits.
+     */
+    private static long inverse(long x) {
+        long inv = x;
+        for (int k = 0; k < 6; k++) {
+            inv *= 2 - x * inv;
+        }
+        return inv;
+    }
+
+    /**
+     * splitmix64 finalizer. Gives well mixed pseudo random numbers for Y[j].
+     */
+    private static long mix(long z) {
+        z = (z + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,5 +1,6 @@
 package testfieldgame;
 
+import java.util.Arrays;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,6 +15,8 @@ import java.util.logging.Logger;
  * <p>
  * FieldQuadrant has access to other threads of the game via array fieldQuadrantAr.
  * FieldQuadrant makes its game turn in call {@link FieldQuadrant#makeTurn} ().
+ * The turn is done either by the row kernel {@link FieldQuadrant#applyRuleToRows} (default),
+ * or by the scalar per-cell fallback {@link FieldQuadrant#applyRule}.
  * Then it puts messages to msgQueues of other quadrants increasing jobsCount counter.
  * Here, FieldQuadrant decreases {@link FieldQuadrant#jobsCount}, because it has done its own main job.
  * Then it takes massages from its own msgQueue in call {@link FieldQuadrant#takeMessagesFromQueue} () and
@@ -25,25 +28,53 @@ import java.util.logging.Logger;
  * <p>
  * After a turn, the main thread will renew FieldQuadrant threads in a loop via {@link FieldQuadrant#getNewCloneWithOldLinks} ().
  * <p>
+ * fieldQuad is stored flat in row-major order in one array shared by all quadrants of the game 
+ * with padding between quadrants (see {@link FieldQuadrant#newSharedField}),
+ * so that quadrants running concurrently never write the same cache line.
+ * Each change of fieldQuad also renews its incremental hash {@link FieldQuadrant#fieldHash}.
+ * <p>
  * FieldQuadrant usage example is shown in {@link Game} class.
  * @author Vladislav Ustinov
  * @version 1.0
  */
 final public class FieldQuadrant extends Thread {      
+    /**
+     * Amount of unused ints between quadrants in the shared field: 32 ints = 128 bytes.
+     * A cache line is 64 bytes on most machines, but with adjacent-line prefetch 
+     * the hardware moves pairs of lines, so 128 bytes is the safe distance between data of two threads.
+     */
+    static final int PAD = 32;
+    
     /**
      * part of game field which belongs personally to FieldQuadrant thread.
      * It can be printed and returned via deepCopy.
      * Access to fieldQuad should not be given anywhere outside FieldQuadrant.
      * As it belongs to only one thread, it may be changed without synchronization
+     * <p>
+     * fieldQuad is the array of the whole game field shared by all quadrants (see {@link FieldQuadrant#newSharedField}).
+     * The quadrant owns only nX*nY ints starting from {@link FieldQuadrant#offset} and never touches the others.
+     * The cells are stored row by row: cell (i, j) is fieldQuad[{@link FieldQuadrant#index}(i, j)]. 
+     * So a turn walks through one continuous piece of memory instead of nX separate row arrays.
      */
-    private final int[][] fieldQuad;
+    private final int[] fieldQuad;
     
     /**
-     * nX = fieldQuand.length
-     * nY = fieldQuad[0].length
+     * Position of cell (0, 0) of the quadrant in the shared fieldQuad array.
+     */
+    private final int offset;
+    
+    /**
+     * nX is amount of rows in fieldQuad,
+     * nY is length of each row.
      */    
     private final int nX, nY;
     
+    /**
+     * Incremental hash of fieldQuad. It belongs to the same thread as fieldQuad 
+     * and must be changed together with it (see {@link FieldQuadrant#setCell}).
+     */
+    private final FieldHash fieldHash;
+    
     /**
      * Global coordinates of current fieldQuad in the whole game field.
      */
@@ -67,30 +98,88 @@ final public class FieldQuadrant extends Thread {
 
     /**
      * Queue ob messages with additional work, coming from other threads in a game.
+     * The queue belongs to the quadrant like fieldQuad and is passed to the clones in {@link FieldQuadrant#getNewCloneWithOldLinks}.
+     * It is made once in {@link Game}, not anew every turn.
+     */
+    private final LinkedBlockingQueue<Point> msgQueue;
+
+    /**
+     * If true, the turn is made by {@link FieldQuadrant#applyRuleToRows} over whole rows of fieldQuad.
+     * Otherwise the scalar per-cell {@link FieldQuadrant#applyRule} is used.
+     */
+    private final boolean rowKernel;
+
+    /**
+     * Makes one flat array for fields of numQuadrants quadrants with nX rows of length nY each.
+     * The quadrants lie one after another with pad unused ints before the first one, 
+     * between each two of them and after the last one.
+     * With pad = {@link FieldQuadrant#PAD} threads of neighbour quadrants never write the same cache line.
+     * With pad = 0 the last cells of one quadrant and the first cells of the next one share a cache line 
+     * written by two threads (false sharing). It is used to measure the effect of padding in benchmarks.
+     * @param numQuadrants - amount of quadrants.
+     * @param nX - amount of rows in each quadrant.
+     * @param nY - length of each row.
+     * @param pad - amount of unused ints between quadrants.
+     * @return new zero filled array to be given to {@link FieldQuadrant#FieldQuadrant} constructor
+     * together with {@link FieldQuadrant#offsetInSharedField} and new {@link FieldHash} of the same size (hash of zero field is zero).
      */
-    private final LinkedBlockingQueue<Point> msgQueue = new LinkedBlockingQueue<>();
+    public static int[] newSharedField (int numQuadrants, int nX, int nY, int pad) {
+        return new int [pad + numQuadrants*(nX*nY + pad)];
+    }
+    
+    /**
+     * @return position of the first cell of quadrant quadrantNum in the array made by {@link FieldQuadrant#newSharedField}.
+     */
+    public static int offsetInSharedField (int quadrantNum, int nX, int nY, int pad) {
+        return pad + quadrantNum*(nX*nY + pad);
+    }
+    
+    /**
+     * @return position of cell (i, j) in flat {@link FieldQuadrant#fieldQuad} array.
+     */
+    private int index (int i, int j) {
+        return offset + i*nY + j;
+    }
 
     /**
      * Access to {@link FieldQuadrant#fieldQuad} data is given only via deepCopy. 
      * It is used in tests to confirm that expected data equals actual.
-     * @return deep copy of {@link FieldQuadrant#fieldQuad} 2d array.
+     * @return deep copy of {@link FieldQuadrant#fieldQuad} as 2d array [nX][nY].
      */
     public int[][] getDeepCopyFiledQuad() {
         if (fieldQuad == null) {
             return null;
         }
 
-        int[][] fieldQuadCopy = new int[fieldQuad.length][fieldQuad[0].length];
+        int[][] fieldQuadCopy = new int[nX][nY];
 
-        for (int i = 0; i < fieldQuad.length; i++) {
-            for (int j = 0; j < fieldQuad[0].length; j++) {
-                fieldQuadCopy[i][j] = fieldQuad[i][j];
-            }
+        for (int i = 0; i < nX; i++) {
+            System.arraycopy(fieldQuad, index(i, 0), fieldQuadCopy[i], 0, nY);
         }
 
         return fieldQuadCopy;
     }
 
+    /**
+     * @return hash of {@link FieldQuadrant#fieldQuad}, which is renewed each time the field changes.
+     */
+    public long getFieldHash() {
+        return fieldHash.get();
+    }
+    
+    /**
+     * Computes hash of {@link FieldQuadrant#fieldQuad} from scratch. 
+     * Used in tests to check up that the incremental {@link FieldQuadrant#getFieldHash} is right.
+     * @return the same value as {@link FieldQuadrant#getFieldHash} should be.
+     */
+    long computeFieldHashFromScratch() {
+        FieldHash hash = new FieldHash(nX, nY);
+        for (int i = 0; i < nX; i++)
+            for (int j = 0; j < nY; j++)
+                hash.change(i, j, 0, fieldQuad[index(i,j)]);
+        return hash.get();
+    }
+
     /**
      * Threads are dead after they were interrupted and stoped.
      * To perform new work, we make a new clone with all the same references to old objects.
@@ -100,13 +189,29 @@ final public class FieldQuadrant extends Thread {
      */
     public FieldQuadrant getNewCloneWithOldLinks (){
                 
-        return new FieldQuadrant (jobsCount, fieldQuad, x1, y1, x2, y2, quadrantNum, fieldQuadrantAr);        
+        return new FieldQuadrant (jobsCount, fieldQuad, offset, fieldHash, msgQueue, x1, y1, x2, y2, quadrantNum, fieldQuadrantAr, rowKernel);        
+    }
+    
+    public int getNX (){
+        return nX;
     }
     
     public int getNY (){
         return nY;
     }
     
+    /**
+     * Puts val to cell (i, j) of fieldQuad and renews {@link FieldQuadrant#fieldHash}.
+     * Should be called only by the owner of fieldQuad, i.e. inside of this thread or when the thread is not running.
+     * @param i - row in {@link FieldQuadrant#fieldQuad}.
+     * @param j - position in the row.
+     * @param val - new value of the cell.
+     */
+    void setCell (int i, int j, int val) {
+        fieldHash.change(i, j, fieldQuad[index(i,j)], val);
+        fieldQuad[index(i,j)] = val;
+    }
+    
     /**
      * Prints j-s string of fieldQuad data field (System.out stream).
      * Used in printing of all field in Game class.
@@ -114,8 +219,8 @@ final public class FieldQuadrant extends Thread {
      * @param j - number of string in fieldQuad array to be printed.
      */
     public void printString (int j) {
-        for (int i = 0; i < fieldQuad.length; i ++)
-            System.out.print (fieldQuad[i][j] + " ");
+        for (int i = 0; i < nX; i ++)
+            System.out.print (fieldQuad[index(i,j)] + " ");
     }
     
     /**
@@ -127,9 +232,9 @@ final public class FieldQuadrant extends Thread {
             return;
         
         for (int i = 0; i < amountNonzero; i ++) {
-            double x = Math.random()*(fieldQuad.length-1);
-            double y = Math.random()*(fieldQuad[0].length-1);
-            fieldQuad[(int)x][(int)y] = 1;
+            double x = Math.random()*(nX-1);
+            double y = Math.random()*(nY-1);
+            setCell ((int)x, (int)y, 1);
         }                        
     }
     
@@ -150,9 +255,7 @@ final public class FieldQuadrant extends Thread {
         
         Game.safePrintln("Start of quadrant " + quadrantNum);
         //synchronized (fieldQuad) { <- nobodyelse has access, so no need for synchronization
-            for (int i = 0; i < nX; i ++)
-                for (int j = 0; j < nY; j ++)
-                    applyRule (i,j);
+            applyRules ();
         //}
         
         Game.safePrintln("Quadrant " + quadrantNum + " is taking additional msgs from queue");
@@ -175,7 +278,7 @@ final public class FieldQuadrant extends Thread {
             while (true){
                 Point pIndex = msgQueue.take();
                 //synchronized (fieldQuad) {
-                    fieldQuad[pIndex.x][pIndex.y] = pIndex.val;
+                    setCell (pIndex.x, pIndex.y, pIndex.val);
                 //}
                 synchronized (jobsCount) {
                     jobsCount.decrement();
@@ -190,35 +293,81 @@ final public class FieldQuadrant extends Thread {
         }
     }
     
+    /**
+     * Applies main rule of the game to the whole fieldQuad
+     * via {@link FieldQuadrant#applyRuleToRows} or via scalar {@link FieldQuadrant#applyRule}.
+     * Package-private so that tests could compare both paths without starting threads.
+     */
+    void applyRules () {
+        if (rowKernel)
+            applyRuleToRows ();
+        else
+            for (int i = 0; i < nX; i ++)
+                for (int j = 0; j < nY; j ++)
+                    applyRule (i,j);
+    }
+
+    /**
+     * Row kernel of the main rule. Moving all "ones" to the left is just a shift of fieldQuad by one row,
+     * so instead of checking cells one by one we pass row 0 to the left quadrant 
+     * and move all the other rows with one System.arraycopy over the flat array, which JIT turns into vectorized copy.
+     * The last row becomes empty and is filled by messages from the right quadrant.
+     * The hash is renewed for row 0 only and then shifted as a whole, see {@link FieldHash}.
+     * <p>
+     * Gives the same result as the scalar {@link FieldQuadrant#applyRule} loop 
+     * as long as there are no negative values in fieldQuad (we only put "ones" there).
+     */
+    private void applyRuleToRows () {
+        for (int j = 0; j < nY; j ++)
+            if (fieldQuad[index(0,j)] > 0) {
+                passToLeftQuadrant (j, fieldQuad[index(0,j)]);
+                fieldHash.change(0, j, fieldQuad[index(0,j)], 0);
+            }
+        
+        System.arraycopy(fieldQuad, index(1,0), fieldQuad, index(0,0), (nX-1)*nY);
+        
+        Arrays.fill(fieldQuad, index(nX-1,0), index(nX-1,0) + nY, 0);
+        fieldHash.shiftRowsLeft();
+    }
+
     /**
      * Applies main rule of the game, i.e. moves "ones" to the left,
      * and gives jobs to other threads, when "ones" are out of fieldQuad boundaries.
      * The function is run in {@link FeildQuadrant#makeTurn} in a loop. 
-     * @param i - current position in {@link FieldQuadrant#fieldQuad} 2d array.
-     * @param j - current position in {@link FieldQuadrant#fieldQuad} 2d array.
+     * @param i - current row in {@link FieldQuadrant#fieldQuad}.
+     * @param j - current position in the row.
      */
     private void applyRule (int i, int j) {
-        if (fieldQuad[i][j] > 0) {
-            int oldVal = fieldQuad[i][j];
-            fieldQuad[i][j] = 0;
+        if (fieldQuad[index(i,j)] > 0) {
+            int oldVal = fieldQuad[index(i,j)];
+            setCell (i, j, 0);
             if (i-1 >= 0)
-                fieldQuad[i-1][j] = oldVal; //    
-            else {                
-                if (quadrantNum == 0)
-                    fieldQuadrantAr[fieldQuadrantAr.length-1].
-                        setAfterMyTurnIndex(nX-1, j, oldVal);
-                else 
-                    fieldQuadrantAr[quadrantNum-1].setAfterMyTurnIndex(nX-1, j, oldVal);
-            }
+                setCell (i-1, j, oldVal); //    
+            else
+                passToLeftQuadrant (j, oldVal);
         }            
     }
     
+    /**
+     * Gives a job to the left quadrant: put val to the last row of its fieldQuad.
+     * The most left quadrant passes val to the most right one (periodic boundary condition).
+     * @param j - position in the last row of the left quadrant.
+     * @param val - value which has gone out of current fieldQuad.
+     */
+    private void passToLeftQuadrant (int j, int val) {
+        if (quadrantNum == 0)
+            fieldQuadrantAr[fieldQuadrantAr.length-1].
+                setAfterMyTurnIndex(nX-1, j, val);
+        else 
+            fieldQuadrantAr[quadrantNum-1].setAfterMyTurnIndex(nX-1, j, val);
+    }
+    
     
     /**
      * puts new message in msgQueue. Should not be interrupted. 
      * If it was interrupted, it means some error occured.
-     * @param i - position to put val in {@link FieldQuadrant#fieldQuad} 2d array.
-     * @param j - position to put val in {@link FieldQuadrant#fieldQuad} 2d array.
+     * @param i - row to put val in {@link FieldQuadrant#fieldQuad}.
+     * @param j - position to put val in the row.
      * @param val - normally equals to "one" in versions 1.0, 2.0
      */
     public void setAfterMyTurnIndex (int i, int j, int val) {
@@ -236,18 +385,26 @@ final public class FieldQuadrant extends Thread {
         }
     }
         
-    public FieldQuadrant(Counter jobsCount, final int [][] fieldQuad, int x1, int y1, int x2, int y2, int quadrantNum, FieldQuadrant[] fieldQuadrantAr) {
+    public FieldQuadrant(Counter jobsCount, final int [] fieldQuad, int offset, FieldHash fieldHash, LinkedBlockingQueue<Point> msgQueue, int x1, int y1, int x2, int y2, int quadrantNum, FieldQuadrant[] fieldQuadrantAr, boolean rowKernel) {
         
         this.jobsCount = jobsCount;
         this.fieldQuad = fieldQuad;//deepCopy(fieldQuad); //new int [x2-x1][y2-y1];
+        this.fieldHash = fieldHash;
+        this.msgQueue = msgQueue;
         this.nX = x2-x1;
         this.nY = y2-y1;
+        this.offset = offset;
         this.x1 = x1;
         this.y1 = y1;
         this.x2 = x2;
         this.y2 = y2;
         this.fieldQuadrantAr = fieldQuadrantAr;
         this.quadrantNum = quadrantNum;
+        this.rowKernel = rowKernel;
+        
+        if (offset < 0 || offset + nX*nY > fieldQuad.length)
+            throw new IllegalArgumentException("FieldQuadrant: cells [" + offset + ", " + (offset + nX*nY) 
+                    + ") are out of fieldQuad of length " + fieldQuad.length);
     }
          
     /**
@@ -1,6 +1,9 @@
 package testfieldgame;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +51,19 @@ import java.util.logging.Logger;
  * After fixed amount of iterations the game field should become the same as it was in the beginning.
  * This follows from our periodic boundary condition, and this is used to check up for games expected vs actual state in the test.
  * <p>
+ * Each quadrant keeps an incremental hash of its field (see {@link FieldHash}), 
+ * and {@link Game#getFieldHash} combines them into the hash of the global field in O(NUM_THREADS).
+ * {@link Game#startUntilCycle} uses it to stop the game as soon as the field repeats some earlier state,
+ * i.e. the field has become stable or periodic, which often happens much earlier than NUM_ITERATIONS turns.
+ * <p>
+ * The best amount of threads depends on the machine and on the field. 
+ * {@link Game#autoTune} plays a few calibration turns with each candidate amount of threads 
+ * (the global field is divided into that many equal quadrants) and keeps the fastest one.
+ * Quadrant length is not tuned on its own: each thread owns exactly one quadrant, 
+ * so it always equals amount of rows divided by amount of threads.
+ * With {@link Game#setAutoTuning} the calibration is done at the start of the game and then periodically.
+ * The choice is given by {@link Game#getNumThreads} and {@link Game#getQuadrantLength}.
+ * <p>
  * @author Vladislav Ustinov
  * @version 1.0
  */
@@ -68,28 +84,78 @@ final public class Game {
      */
     private final int INITIAL_NUM_POINTS;   
     /**
-     * FIELD_LENGTH is length of each quadrant, which is smaller piece of global 2d array field.
+     * FIELD_LENGTH is length of each row of the global field, i.e. nY of every quadrant.
+     * The global field has FIELD_LENGTH*NUM_THREADS rows. In the constructor it is divided into NUM_THREADS quadrants
+     * of FIELD_LENGTH rows each. After {@link Game#autoTune} each quadrant has {@link Game#getQuadrantLength} rows,
+     * i.e. FIELD_LENGTH*NUM_THREADS / {@link Game#getNumThreads}.
     */
     private final int FIELD_LENGTH;    
     /**
-     * NUM_THREADS is amount of threads in the pool. 
+     * NUM_THREADS is amount of threads in the pool given to the constructor. 
      * The total number of threads in the programm is NUM_THREADS + 1.
+     * Auto tuning may change amount of threads in the pool, see {@link Game#getNumThreads}.
      */
     private final int NUM_THREADS;
     /**
      * NUM_ITERATIONS is how many turns will be in the main life loop of the game.
      */
     private final int NUM_ITERATIONS;
+    /**
+     * USE_ROW_KERNEL chooses how quadrants make their turn: 
+     * whole rows at once (true) or the scalar per-cell rule (false).
+     * See {@link FieldQuadrant#applyRules}.
+     */
+    private final boolean USE_ROW_KERNEL;
+    /**
+     * USE_PADDING chooses whether quadrants' fields in the shared field array are separated by 
+     * {@link FieldQuadrant#PAD} unused ints (see {@link FieldQuadrant#newSharedField}).
+     * Without padding neighbour quadrants write the same cache lines at their boundaries. 
+     * It is switched off only to measure the effect of padding in benchmarks.
+     */
+    private final boolean USE_PADDING;
+    
+    /**
+     * turnsPlayed is how many turns were made in the last call of {@link Game#start} or {@link Game#startUntilCycle}.
+     */
+    private int turnsPlayed;
+    
+    /**
+     * calibrationTurns is how many turns {@link Game#autoTune} measures for each candidate amount of threads.
+     * Zero means that auto tuning is switched off in {@link Game#start} and {@link Game#startUntilCycle}.
+     */
+    private int calibrationTurns;
+    
+    /**
+     * retuneInterval is how many turns are made between two calls of {@link Game#autoTune} during the game.
+     * Zero means that the calibration is done only once at the start of the game.
+     */
+    private int retuneInterval;
+    
+    /**
+     * CALIBRATION_ROUNDS is how many times each candidate is measured in {@link Game#autoTune}.
+     * Rounds go over all the candidates in turn and the best round of each candidate is compared,
+     * so that a candidate is not slower just because it was measured first or in a noisy moment.
+     */
+    private static final int CALIBRATION_ROUNDS = 5;
+    
+    /**
+     * RETUNE_MARGIN is how much faster than the current pool a candidate should be to replace it.
+     * It keeps periodic calibration from switching back and forth between candidates of nearly the same speed.
+     */
+    private static final double RETUNE_MARGIN = 0.1;
     
     /**
      * fieldQuadrantAr is array imitating threads pool. 
      * Perhaps, ExectorService would be better choice, but for now it is as it is.
+     * The array is replaced by a new one in {@link Game#setQuadrants}, when auto tuning changes amount of threads.
      */
-    private final FieldQuadrant[] fieldQuadrantAr;
+    private FieldQuadrant[] fieldQuadrantAr;
     
     /**
-     * getDeepCopyAllFields is used in test to fix initial global field 
-     * and then compare it with the state after all loops. They should equal each other.
+     * getDeepCopyAllFields gives the field as it is divided into quadrants of the current threads pool.
+     * Amount and size of the quadrants change, when {@link Game#autoTune} changes amount of threads,
+     * so to compare the field before and after a run use {@link Game#getDeepCopyGlobalField} 
+     * (or {@link Game#getFieldHash}) instead.
      * @return ArrayList of quadrants, which all together make up the global game field.
      */
     public ArrayList<int[][]> getDeepCopyAllFields() {
@@ -106,33 +172,271 @@ final public class Game {
         return resAr;
     }
     
+    /**
+     * Used to keep the global field while the threads pool is changed in {@link Game#autoTune}.
+     * Unlike {@link Game#getDeepCopyAllFields}, it does not depend on how the field is divided into quadrants.
+     * @return global game field as 2d array, quadrants' rows are going one after another.
+     */
+    public int[][] getDeepCopyGlobalField() {
+        ArrayList<int[][]> quads = getDeepCopyAllFields();
+        int[][] field = new int [FIELD_LENGTH*NUM_THREADS][];
+        int rows = 0;
+        
+        for (int[][] quad : quads) {
+            System.arraycopy(quad, 0, field, rows, quad.length);
+            rows += quad.length;
+        }
+        
+        return field;
+    }
+    
+    /**
+     * Combines hashes of all the quadrants into the hash of the global field.
+     * Equal global fields have equal hashes. Different fields usually have different hashes, 
+     * but the hash is not collision free and its collisions are more likely than 2^-64 for a random pair of fields:
+     * X^a - X^b has at least 2 + (power of two in a-b) low zero bits, and Y[j] are fixed, not chosen anew for each game.
+     * So a hash match is strong evidence, not a proof, that two fields are equal 
+     * (tests confirm the final state via deep copies too).
+     * Should be called between turns, when threads from the pool do not change their fields.
+     * @return hash of the global field.
+     */
+    public long getFieldHash() {
+        long hash = 0;
+        int rows = 0;
+        
+        for (FieldQuadrant quad : fieldQuadrantAr) {
+            hash += FieldHash.shiftRows(quad.getFieldHash(), rows);
+            rows += quad.getNX();
+        }
+        
+        return hash;
+    }
+    
+    /**
+     * @return how many turns were made in the last call of {@link Game#start} or {@link Game#startUntilCycle}.
+     */
+    public int getTurnsPlayed() {
+        return turnsPlayed;
+    }
+    
+    /**
+     * @return current amount of threads in the pool. It equals NUM_THREADS unless auto tuning has chosen another one.
+     */
+    public int getNumThreads() {
+        return fieldQuadrantAr.length;
+    }
+    
+    /**
+     * @return current amount of rows in each quadrant. Together all the quadrants have FIELD_LENGTH*NUM_THREADS rows.
+     */
+    public int getQuadrantLength() {
+        return fieldQuadrantAr[0].getNX();
+    }
+    
     /**
      * Constructor sets up data via using new operator to all final fields, which will be not renewed
      * until the very end of the game.
      * 
      * @param INITIAL_NUM_POINTS is amount of "ones" in the field.
-     * @param FIELD_LENGTH is length of each quadrant, which is smaller piece of global 2d array field.
+     * @param FIELD_LENGTH is length of each row of the global field. The field has FIELD_LENGTH*NUM_THREADS rows
+     * and is divided into NUM_THREADS quadrants of FIELD_LENGTH rows each (until auto tuning changes that).
      * @param NUM_THREADS is amount of threads in the pool.  
      */
     public Game (int INITIAL_NUM_POINTS, int FIELD_LENGTH, int NUM_THREADS) {
+        this(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, true);
+    }
+    
+    /**
+     * The same as {@link Game#Game(int, int, int)}, but lets choose the kernel of quadrants' turn.
+     * The scalar kernel is kept as a fallback and as a reference in tests and benchmarks.
+     * 
+     * @param INITIAL_NUM_POINTS is amount of "ones" in the field.
+     * @param FIELD_LENGTH is length of each row of the global field. The field has FIELD_LENGTH*NUM_THREADS rows
+     * and is divided into NUM_THREADS quadrants of FIELD_LENGTH rows each (until auto tuning changes that).
+     * @param NUM_THREADS is amount of threads in the pool.  
+     * @param USE_ROW_KERNEL is true for the row kernel and false for the scalar per-cell rule.
+     */
+    public Game (int INITIAL_NUM_POINTS, int FIELD_LENGTH, int NUM_THREADS, boolean USE_ROW_KERNEL) {
+        this(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, USE_ROW_KERNEL, true);
+    }
+    
+    /**
+     * The same as {@link Game#Game(int, int, int, boolean)}, but lets switch off padding 
+     * between quadrants' fields, so that benchmarks could compare both layouts.
+     * 
+     * @param INITIAL_NUM_POINTS is amount of "ones" in the field.
+     * @param FIELD_LENGTH is length of each row of the global field. The field has FIELD_LENGTH*NUM_THREADS rows
+     * and is divided into NUM_THREADS quadrants of FIELD_LENGTH rows each (until auto tuning changes that).
+     * @param NUM_THREADS is amount of threads in the pool.  
+     * @param USE_ROW_KERNEL is true for the row kernel and false for the scalar per-cell rule.
+     * @param USE_PADDING is true for padded quadrants' fields and false for the ones without padding.
+     */
+    public Game (int INITIAL_NUM_POINTS, int FIELD_LENGTH, int NUM_THREADS, boolean USE_ROW_KERNEL, boolean USE_PADDING) {
         this.INITIAL_NUM_POINTS = INITIAL_NUM_POINTS;
         this.FIELD_LENGTH = FIELD_LENGTH;        
         this.NUM_THREADS = NUM_THREADS;
+        this.USE_ROW_KERNEL = USE_ROW_KERNEL;
+        this.USE_PADDING = USE_PADDING;
         NUM_ITERATIONS = FIELD_LENGTH*NUM_THREADS;
         
         jobsCount = new Counter (NUM_THREADS);
         
-        fieldQuadrantAr = new FieldQuadrant [NUM_THREADS];
+        setQuadrants (NUM_THREADS, new int [FIELD_LENGTH*NUM_THREADS][FIELD_LENGTH]);
+                
+        setRandomInit (INITIAL_NUM_POINTS);                                
+    }
+    
+    /**
+     * Makes new threads pool of numThreads equal quadrants and puts the global field into them.
+     * Should be called only between turns, when no thread from the old pool is working.
+     * @param numThreads - amount of threads in the new pool. Should divide amount of rows in the field.
+     * @param field - global field, see {@link Game#getDeepCopyGlobalField}.
+     */
+    private void setQuadrants (int numThreads, int[][] field) {
+        FieldQuadrant[] newQuadrantAr = new FieldQuadrant [numThreads];
+        int length = field.length / numThreads;
+        int pad = USE_PADDING ? FieldQuadrant.PAD : 0;
+        int[] sharedField = FieldQuadrant.newSharedField(numThreads, length, FIELD_LENGTH, pad);
 
-        int x1 = 0, x2 = FIELD_LENGTH, y1 = 0, y2 = FIELD_LENGTH;
-        for (int i = 0; i < NUM_THREADS; i++) {
+        int x1 = 0, x2 = length, y1 = 0, y2 = FIELD_LENGTH;
+        for (int i = 0; i < numThreads; i++) {
             int quadrantNum = i;
-            int[][] fieldQuad = new int [x2-x1][y2-y1];
-            fieldQuadrantAr[i] = new FieldQuadrant(jobsCount, fieldQuad, x1, y1, x2, y2, quadrantNum, fieldQuadrantAr);
-            x1 = x2+1; x2 = x1+FIELD_LENGTH; y1 = 0; y2 = FIELD_LENGTH;
+            int offset = FieldQuadrant.offsetInSharedField(i, x2-x1, y2-y1, pad);
+            FieldHash fieldHash = new FieldHash(x2-x1, y2-y1);
+            LinkedBlockingQueue<FieldQuadrant.Point> msgQueue = new LinkedBlockingQueue<>();
+            newQuadrantAr[i] = new FieldQuadrant(jobsCount, sharedField, offset, fieldHash, msgQueue, x1, y1, x2, y2, quadrantNum, newQuadrantAr, USE_ROW_KERNEL);
+            
+            for (int r = 0; r < length; r++)
+                for (int j = 0; j < FIELD_LENGTH; j++)
+                    if (field[i*length + r][j] != 0)
+                        newQuadrantAr[i].setCell(r, j, field[i*length + r][j]);
+            
+            x1 = x2+1; x2 = x1+length; y1 = 0; y2 = FIELD_LENGTH;
+        }
+        
+        fieldQuadrantAr = newQuadrantAr;
+    }
+    
+    /**
+     * Switches on auto tuning in {@link Game#start} and {@link Game#startUntilCycle}: 
+     * {@link Game#autoTune} is called at the start of the game and then each RETUNE_INTERVAL turns, 
+     * so that the choice follows changes of the field.
+     * Later calibrations try only the current amount of threads and its nearest candidates.
+     * <p>
+     * Calibration is not free. It makes about (amount of candidates) * (1 + CALIBRATION_ROUNDS) * CALIBRATION_TURNS turns,
+     * which are extra work on top of the turns of the game: up to 3 candidates for each calibration during the game
+     * and all of them at the start. RETUNE_INTERVAL should be much longer than that, 
+     * otherwise the game spends more time on calibration than it saves.
+     * 
+     * @param CALIBRATION_TURNS is how many turns are measured for each candidate in each round. Zero switches auto tuning off.
+     * @param RETUNE_INTERVAL is how many turns are made between calibrations. Zero means calibration only at the start.
+     */
+    public void setAutoTuning (int CALIBRATION_TURNS, int RETUNE_INTERVAL) {
+        this.calibrationTurns = CALIBRATION_TURNS;
+        this.retuneInterval = RETUNE_INTERVAL;
+    }
+    
+    /**
+     * Calibrates amount of threads in the pool on the current field. 
+     * Candidates are all amounts of threads up to twice the number of cores (or NUM_THREADS, if it is bigger),
+     * which divide the field into equal quadrants.
+     * Only amount of threads is calibrated. Quadrant length is not a separate candidate: 
+     * each thread owns exactly one quadrant, so the length is always FIELD_LENGTH*NUM_THREADS / amount of threads,
+     * and candidate lengths are just the ones given by divisors of amount of rows.
+     * <p>
+     * First every candidate is warmed up with CALIBRATION_TURNS turns, so that none of them is measured with cold JIT.
+     * Then CALIBRATION_ROUNDS rounds go over all the candidates in turn, each measuring CALIBRATION_TURNS turns,
+     * and the best round of each candidate is taken. The fastest candidate replaces the current pool 
+     * only if it is faster by more than RETUNE_MARGIN, otherwise the current pool is kept.
+     * This costs about (amount of candidates) * (1 + CALIBRATION_ROUNDS) * CALIBRATION_TURNS turns.
+     * <p>
+     * Calibration turns are not the turns of the game: the field is restored after calibration,
+     * so neither {@link Game#getFieldHash} nor NUM_ITERATIONS of {@link Game#start} are affected.
+     * 
+     * @param CALIBRATION_TURNS is how many turns are measured for each candidate in each round.
+     * @return chosen amount of threads, the same as {@link Game#getNumThreads} after the call.
+     */
+    public int autoTune (int CALIBRATION_TURNS) {
+        return autoTune (CALIBRATION_TURNS, getCandidateNumThreads (false));
+    }
+    
+    /**
+     * @param nearCurrentOnly - if true, only the current amount of threads and the nearest candidates below and above it.
+     * @return amounts of threads, which divide the field into equal quadrants, in increasing order.
+     */
+    private ArrayList<Integer> getCandidateNumThreads (boolean nearCurrentOnly) {
+        int rows = FIELD_LENGTH*NUM_THREADS;
+        int maxThreads = Math.min(rows, 2 * Math.max(NUM_THREADS, Runtime.getRuntime().availableProcessors()));
+        
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads++)
+            if (rows % numThreads == 0)
+                candidates.add(numThreads);
+        
+        int current = candidates.indexOf(fieldQuadrantAr.length);
+        if (!nearCurrentOnly || current < 0)
+            return candidates;
+        
+        return new ArrayList<>(candidates.subList(Math.max(0, current-1), Math.min(candidates.size(), current+2)));
+    }
+    
+    /**
+     * Calibration of {@link Game#autoTune(int)} over the given candidates.
+     */
+    private int autoTune (int CALIBRATION_TURNS, ArrayList<Integer> candidates) {
+        int[][] field = getDeepCopyGlobalField();
+        int currentNumThreads = fieldQuadrantAr.length;
+        
+        for (int numThreads : candidates) {
+            setQuadrants (numThreads, field);
+            for (int i = 0; i < CALIBRATION_TURNS; i++)
+                playTurn();
         }
+        
+        long[] bestTime = new long [candidates.size()];
+        Arrays.fill(bestTime, Long.MAX_VALUE);
+        
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            for (int k = 0; k < candidates.size(); k++) {
+                setQuadrants (candidates.get(k), field);
                 
-        setRandomInit (INITIAL_NUM_POINTS);                                
+                long timeStart = System.nanoTime();
+                for (int i = 0; i < CALIBRATION_TURNS; i++)
+                    playTurn();
+                bestTime[k] = Math.min(bestTime[k], System.nanoTime() - timeStart);
+            }
+        }
+        
+        int fastest = 0;
+        for (int k = 1; k < candidates.size(); k++)
+            if (bestTime[k] < bestTime[fastest])
+                fastest = k;
+        
+        int current = candidates.indexOf(currentNumThreads);
+        int chosenNumThreads = currentNumThreads;
+        if (current < 0 || bestTime[fastest] < (1 - RETUNE_MARGIN) * bestTime[current])
+            chosenNumThreads = candidates.get(fastest);
+        
+        setQuadrants (chosenNumThreads, field);
+        Logger.getLogger(Game.class.getName()).log(Level.FINE, 
+                "Auto tuning: threads = {0}, quadrant length = {1}", new Object[]{chosenNumThreads, getQuadrantLength()});
+        
+        return chosenNumThreads;
+    }
+    
+    /**
+     * Calls {@link Game#autoTune} at the start of the game over all the candidates 
+     * and each retuneInterval turns over the nearest ones, if auto tuning is switched on.
+     * @param currentIteration is number of the turn which is going to be made.
+     */
+    private void autoTuneIfNeeded (int currentIteration) {
+        if (calibrationTurns <= 0)
+            return;
+        
+        if (currentIteration == 0)
+            autoTune (calibrationTurns, getCandidateNumThreads (false));
+        else if (retuneInterval > 0 && currentIteration % retuneInterval == 0)
+            autoTune (calibrationTurns, getCandidateNumThreads (true));
     }
     
     /**
@@ -186,34 +490,8 @@ final public class Game {
         while (currentIteration < NUM_ITERATIONS) {
             
             //printQuadrants();
-            jobsCount.set(fieldQuadrantAr.length);
-
-            reinitializeQuadrantThreads();
-
-            for (FieldQuadrant quad : fieldQuadrantAr) {
-                quad.start();
-            }
-
-            try {
-                synchronized (jobsCount) { // very important that get is aslo in synchronized block!
-                    //very important that while has condition
-                    while (jobsCount.get() > 0) {
-                        jobsCount.wait();
-                    }
-                    
-                    if (jobsCount.get() < 0) {
-                        throw new Exception("MainStream: jobsCount.get() < 0");
-                    }
-                }
-            } catch (InterruptedException ex) {
-                Logger.getLogger(Game.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (Exception ex) {
-                Logger.getLogger(Game.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
-            for (FieldQuadrant quad : fieldQuadrantAr) {
-                quad.interrupt();
-            }
+            autoTuneIfNeeded (currentIteration);
+            playTurn();
 
             //System.out.println("jobsCount.get() = " + jobsCount.get() + ", press any key or q!");
 
@@ -229,10 +507,94 @@ final public class Game {
                 break;*/
         }
 
+        turnsPlayed = currentIteration;
+
         //printQuadrants();
         
         //System.out.println("Game ended");
     }
+    
+    /**
+     * Launches main game loop, which stops as soon as the global field repeats some of its earlier states.
+     * States are compared via {@link Game#getFieldHash}, which is kept in a map from hash to the turn it was seen at.
+     * So the check costs O(NUM_THREADS) per turn instead of comparing deep copies of the field.
+     * A single hash match is trusted, so on a hash collision (see {@link Game#getFieldHash}) 
+     * the game may stop too early and report a wrong period.
+     * <p>
+     * The game is never longer than NUM_ITERATIONS turns, like in {@link Game#start}.
+     * After that the field always comes back to its start state because of periodic boundary condition.
+     * Amount of turns actually made is given by {@link Game#getTurnsPlayed}.
+     * 
+     * @return period of the found cycle: 1 if the field has become stable, 
+     * more than 1 if the field oscillates, 0 if no repeated state was found in NUM_ITERATIONS turns.
+     */
+    public int startUntilCycle() {
+        HashMap<Long, Integer> turnOfHash = new HashMap<>();
+        int currentIteration = 0, period = 0;
+        
+        turnOfHash.put(getFieldHash(), currentIteration);
+        
+        while (currentIteration < NUM_ITERATIONS) {
+            autoTuneIfNeeded (currentIteration);
+            playTurn();
+            currentIteration ++;
+            
+            Integer firstTurn = turnOfHash.put(getFieldHash(), currentIteration);
+            if (firstTurn != null) {
+                period = currentIteration - firstTurn;
+                break;
+            }
+        }
+        
+        turnsPlayed = currentIteration;
+        return period;
+    }
+    
+    /**
+     * Makes one turn of the game. Starts renewed threads from the pool and 
+     * waits until jobsCount is zero, i.e. all the jobs of the turn have been done.
+     * Then interrupts threads waiting at their empty msgQueues and waits until they are finished.
+     */
+    private void playTurn() {
+        jobsCount.set(fieldQuadrantAr.length);
+
+        reinitializeQuadrantThreads();
+
+        for (FieldQuadrant quad : fieldQuadrantAr) {
+            quad.start();
+        }
+
+        try {
+            synchronized (jobsCount) { // very important that get is aslo in synchronized block!
+                //very important that while has condition
+                while (jobsCount.get() > 0) {
+                    jobsCount.wait();
+                }
+                
+                if (jobsCount.get() < 0) {
+                    throw new Exception("MainStream: jobsCount.get() < 0");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Game.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (Exception ex) {
+            Logger.getLogger(Game.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        for (FieldQuadrant quad : fieldQuadrantAr) {
+            quad.interrupt();
+        }
+        
+        // msgQueues are kept from turn to turn, so interrupted threads must be finished
+        // before the next turn, otherwise they could take messages of their clones.
+        try {
+            for (FieldQuadrant quad : fieldQuadrantAr) {
+                quad.join();
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Game.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
 
     /**
      * Prints String s in System.out in a synchronized way. 
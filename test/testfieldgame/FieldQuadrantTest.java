@@ -0,0 +1,104 @@
+package testfieldgame;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Checks up that the row kernel of {@link FieldQuadrant} gives the same field 
+ * and the same jobs for other quadrants as the scalar per-cell rule.
+ * <p>
+ * @author Vladislav Ustinov
+ * @version 1.0
+ */
+public class FieldQuadrantTest extends Assert {
+
+    /**
+     * Both kernels are applied to equal random fields several turns in a row.
+     * Incremental hashes of both fields should be equal to the hash computed from scratch.
+     * A single quadrant passes its "ones" to itself, so messages just stay in its queue 
+     * and are counted in jobsCount.
+     */
+    @Test
+    public void testRowKernelEqualsScalarRule() {
+        int NX = 37, NY = 29, NUM_TURNS = 5;
+
+        for (int amountNonzero = 0; amountNonzero <= NX * NY; amountNonzero += 100) {
+            int[][] data = new int[NX][NY];
+            for (int i = 0; i < amountNonzero; i++) {
+                data[(int) (Math.random() * NX)][(int) (Math.random() * NY)] = 1;
+            }
+
+            Counter scalarJobs = new Counter(0), rowJobs = new Counter(0);
+            FieldQuadrant scalar = newSingleQuadrant(scalarJobs, data, false);
+            FieldQuadrant rows = newSingleQuadrant(rowJobs, data, true);
+
+            for (int turn = 0; turn < NUM_TURNS; turn++) {
+                scalar.applyRules();
+                rows.applyRules();
+
+                assertArrayEquals(scalar.getDeepCopyFiledQuad(), rows.getDeepCopyFiledQuad());
+                assertEquals(scalarJobs.get(), rowJobs.get());
+                assertEquals(scalar.computeFieldHashFromScratch(), scalar.getFieldHash());
+                assertEquals(rows.computeFieldHashFromScratch(), rows.getFieldHash());
+            }
+        }
+    }
+
+    /**
+     * Quadrants without padding lie right next to each other in the shared field.
+     * Turns of one quadrant should not change cells of its neighbours.
+     */
+    @Test
+    public void testSharedFieldWithoutPadding() {
+        int NX = 5, NY = 7, NUM_QUADRANTS = 3;
+        int[] sharedField = FieldQuadrant.newSharedField(NUM_QUADRANTS, NX, NY, 0);
+        assertEquals(NUM_QUADRANTS * NX * NY, sharedField.length);
+
+        Counter jobsCount = new Counter(0);
+        FieldQuadrant[] fieldQuadrantAr = new FieldQuadrant[NUM_QUADRANTS];
+        for (int q = 0; q < NUM_QUADRANTS; q++) {
+            fieldQuadrantAr[q] = new FieldQuadrant(jobsCount, sharedField, FieldQuadrant.offsetInSharedField(q, NX, NY, 0),
+                    new FieldHash(NX, NY), new LinkedBlockingQueue<>(), 0, 0, NX, NY, q, fieldQuadrantAr, true);
+        }
+        for (int j = 0; j < NY; j++) {
+            fieldQuadrantAr[0].setCell(NX - 1, j, 1);
+            fieldQuadrantAr[2].setCell(0, j, 1);
+        }
+        int[][] before0 = fieldQuadrantAr[0].getDeepCopyFiledQuad();
+        int[][] before2 = fieldQuadrantAr[2].getDeepCopyFiledQuad();
+
+        fieldQuadrantAr[1].applyRules();
+
+        assertArrayEquals(before0, fieldQuadrantAr[0].getDeepCopyFiledQuad());
+        assertArrayEquals(before2, fieldQuadrantAr[2].getDeepCopyFiledQuad());
+    }
+
+    /**
+     * A quadrant whose cells do not fit into the given array should be rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffsetOutOfField() {
+        int NX = 4, NY = 4;
+        int[] sharedField = FieldQuadrant.newSharedField(1, NX, NY, FieldQuadrant.PAD);
+        FieldQuadrant[] fieldQuadrantAr = new FieldQuadrant[1];
+        new FieldQuadrant(new Counter(0), sharedField, sharedField.length - NX * NY + 1, new FieldHash(NX, NY), new LinkedBlockingQueue<>(),
+                0, 0, NX, NY, 0, fieldQuadrantAr, true);
+    }
+
+    private static FieldQuadrant newSingleQuadrant(Counter jobsCount, int[][] data, boolean rowKernel) {
+        int nX = data.length, nY = data[0].length;
+        int[] sharedField = FieldQuadrant.newSharedField(1, nX, nY, FieldQuadrant.PAD);
+        FieldQuadrant[] fieldQuadrantAr = new FieldQuadrant[1];
+        fieldQuadrantAr[0] = new FieldQuadrant(jobsCount, sharedField, FieldQuadrant.offsetInSharedField(0, nX, nY, FieldQuadrant.PAD),
+                new FieldHash(nX, nY), new LinkedBlockingQueue<>(), 0, 0, nX, nY, 0, fieldQuadrantAr, rowKernel);
+
+        for (int i = 0; i < nX; i++) {
+            for (int j = 0; j < nY; j++) {
+                fieldQuadrantAr[0].setCell(i, j, data[i][j]);
+            }
+        }
+        return fieldQuadrantAr[0];
+    }
+}
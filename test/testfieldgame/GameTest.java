@@ -1,6 +1,9 @@
 package testfieldgame;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -75,6 +78,173 @@ public class GameTest extends Assert {
         }
     }
 
+    /**
+     * Test of quadrants' scalability on 8 and more threads with and without padding.
+     * All quadrants are carved out of one shared field array (see {@link FieldQuadrant#newSharedField}):
+     * without padding the last cells of each quadrant and the first cells of the next one share cache lines,
+     * with padding they are {@link FieldQuadrant#PAD} ints apart. Nothing else differs between the two layouts.
+     * <p>
+     * Only the kernel phase ({@link FieldQuadrant#applyRules}) is timed: threads are made and started before the clock
+     * and make NUM_TURNS turns each, so thread creation of {@link Game#start} does not hide the effect.
+     * Fields are empty, so there are no messages between quadrants, but the row kernel still rewrites every cell each turn.
+     * False sharing can only show up when quadrants really run in parallel, i.e. on several cores.
+     */
+    @Test
+    public void testProductivityManyThreads() throws InterruptedException {
+        System.out.println("Many threads kernel productivity test");
+        System.out.println("Number of cores = " + Runtime.getRuntime().availableProcessors());
+
+        int FIELD_LENGTH = 8, NUM_TURNS = 100000, NUM_RUNS = 5;
+        int[] NUM_THREADS_AR = {8, 16};
+        long[] timePadded = new long[NUM_THREADS_AR.length], timeUnpadded = new long[NUM_THREADS_AR.length];
+        Arrays.fill(timePadded, Long.MAX_VALUE);
+        Arrays.fill(timeUnpadded, Long.MAX_VALUE);
+
+        // layouts and amounts of threads are interleaved in each run and the best run is taken,
+        // so that JIT warm up and scheduler noise do not favour the ones measured first
+        for (int run = 0; run < NUM_RUNS; run++) {
+            for (int k = 0; k < NUM_THREADS_AR.length; k++) {
+                timePadded[k] = Math.min(timePadded[k], timeKernelPhase(NUM_THREADS_AR[k], FIELD_LENGTH, FieldQuadrant.PAD, NUM_TURNS));
+                timeUnpadded[k] = Math.min(timeUnpadded[k], timeKernelPhase(NUM_THREADS_AR[k], FIELD_LENGTH, 0, NUM_TURNS));
+            }
+        }
+
+        for (int k = 0; k < NUM_THREADS_AR.length; k++) {
+            System.out.print("Threads = " + NUM_THREADS_AR[k] + " ; ");
+            System.out.print("Padded nanoseconds per turn = " + (double) timePadded[k] / NUM_TURNS + " ; ");
+            System.out.println("Unpadded nanoseconds per turn = " + (double) timeUnpadded[k] / NUM_TURNS);
+        }
+    }
+
+    /**
+     * Runs the kernel phase of NUM_THREADS empty quadrants FIELD_LENGTH x FIELD_LENGTH in parallel.
+     * @param pad is amount of unused ints between quadrants in the shared field.
+     * @param NUM_TURNS is how many times each thread calls {@link FieldQuadrant#applyRules}.
+     * @return time from the common start of all threads until the last of them is finished, in nano seconds.
+     */
+    static long timeKernelPhase(int NUM_THREADS, int FIELD_LENGTH, int pad, int NUM_TURNS) throws InterruptedException {
+        int[] sharedField = FieldQuadrant.newSharedField(NUM_THREADS, FIELD_LENGTH, FIELD_LENGTH, pad);
+        FieldQuadrant[] fieldQuadrantAr = new FieldQuadrant[NUM_THREADS];
+        Counter jobsCount = new Counter(0);
+
+        for (int q = 0; q < NUM_THREADS; q++) {
+            fieldQuadrantAr[q] = new FieldQuadrant(jobsCount, sharedField, FieldQuadrant.offsetInSharedField(q, FIELD_LENGTH, FIELD_LENGTH, pad),
+                    new FieldHash(FIELD_LENGTH, FIELD_LENGTH), new LinkedBlockingQueue<>(),
+                    0, 0, FIELD_LENGTH, FIELD_LENGTH, q, fieldQuadrantAr, true);
+        }
+
+        CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] workers = new Thread[NUM_THREADS];
+        for (int q = 0; q < NUM_THREADS; q++) {
+            FieldQuadrant quad = fieldQuadrantAr[q];
+            workers[q] = new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int turn = 0; turn < NUM_TURNS; turn++) {
+                    quad.applyRules();
+                }
+            });
+            workers[q].start();
+        }
+
+        long timeStart = System.nanoTime();
+        startSignal.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - timeStart;
+    }
+
+    /**
+     * Benchmark of the row kernel against the scalar per-cell rule (see {@link FieldQuadrant#applyRules})
+     * with respect to length of the quadrants. 
+     * Both kernels also pass the asserts of {@link GameTest#testFixedNumThreads}.
+     */
+    @Test
+    public void testProductivityFieldLength() {
+        System.out.println("Row kernel vs scalar rule productivity test");
+
+        int INITIAL_NUM_POINTS = 50, NUM_THREADS = 2;
+        int BEFORE_TEST_RUNS = 20;
+
+        for (int FIELD_LENGTH = 25; FIELD_LENGTH <= 200; FIELD_LENGTH *= 2) {
+
+            long timeScalar = testFixedNumThreads(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, BEFORE_TEST_RUNS, false);
+            long timeRows = testFixedNumThreads(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, BEFORE_TEST_RUNS, true);
+
+            System.out.print("Field length = " + FIELD_LENGTH + " ; ");
+            System.out.print("Scalar milliseconds = " + timeScalar / 1000000.0 + " ; ");
+            System.out.println("Row kernel milliseconds = " + timeRows / 1000000.0);
+        }
+    }
+
+    /**
+     * Test of {@link Game#startUntilCycle}. The field is periodic with period dividing NUM_ITERATIONS,
+     * so the game should stop not later than NUM_ITERATIONS turns with the field equal to its start state.
+     * Empty field is stable, so the game with no "ones" should stop after the very first turn.
+     */
+    @Test
+    public void testStartUntilCycle() {
+        int FIELD_LENGTH = 20, NUM_THREADS = 3;
+
+        Game emptyGame = new Game(0, FIELD_LENGTH, NUM_THREADS);
+        assertEquals(1, emptyGame.startUntilCycle());
+        assertEquals(1, emptyGame.getTurnsPlayed());
+
+        for (int INITIAL_NUM_POINTS = 1; INITIAL_NUM_POINTS <= 20; INITIAL_NUM_POINTS++) {
+            Game game = new Game(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS);
+            ArrayList<int[][]> dataBefore = game.getDeepCopyAllFields();
+
+            int period = game.startUntilCycle();
+
+            assertTrue(period > 0);
+            assertEquals(0, (FIELD_LENGTH * NUM_THREADS) % period);
+            assertEquals(period, game.getTurnsPlayed());
+            assertTrue(allDataEquals(dataBefore, game.getDeepCopyAllFields()));
+        }
+    }
+
+    /**
+     * Test of {@link Game#autoTune} and {@link Game#setAutoTuning}.
+     * The chosen amount of threads should divide the field into equal quadrants, 
+     * and calibration should not change the global field. 
+     * With periodic calibration during {@link Game#start} the field should still come back to its start state.
+     */
+    @Test
+    public void testAutoTune() {
+        System.out.println("Auto tuning test");
+        System.out.println("Number of cores = " + Runtime.getRuntime().availableProcessors());
+
+        // one calibration during the game is about 3 * (1 + 5) * CALIBRATION_TURNS = 36 turns, 
+        // much less than RETUNE_INTERVAL (see Game#setAutoTuning)
+        int INITIAL_NUM_POINTS = 20, FIELD_LENGTH = 100, NUM_THREADS = 3;
+        int CALIBRATION_TURNS = 2, RETUNE_INTERVAL = 200;
+
+        Game game = new Game(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS);
+        int[][] dataBefore = game.getDeepCopyGlobalField();
+        long hashBefore = game.getFieldHash();
+
+        int numThreads = game.autoTune(CALIBRATION_TURNS);
+
+        System.out.print("Threads = " + game.getNumThreads() + " ; ");
+        System.out.println("Quadrant length = " + game.getQuadrantLength());
+
+        assertEquals(numThreads, game.getNumThreads());
+        assertEquals(FIELD_LENGTH * NUM_THREADS, game.getNumThreads() * game.getQuadrantLength());
+        assertEquals(hashBefore, game.getFieldHash());
+        assertArrayEquals(dataBefore, game.getDeepCopyGlobalField());
+
+        game.setAutoTuning(CALIBRATION_TURNS, RETUNE_INTERVAL);
+        game.start();
+
+        assertEquals(FIELD_LENGTH * NUM_THREADS, game.getTurnsPlayed());
+        assertEquals(hashBefore, game.getFieldHash());
+        assertArrayEquals(dataBefore, game.getDeepCopyGlobalField());
+    }
+
     /**
      * Test of {@link Game} class productivity
      * when number of threads, length of data field and moving points (INITIAL_NUM_POINTS)
@@ -82,33 +252,46 @@ public class GameTest extends Assert {
      * <p>
      * Asserts that intial global field is equal to the resulting global field. 
      * This should be true, because of periodic boundary condition applied.
+     * After each run the fields are compared via {@link Game#getFieldHash} in O(NUM_THREADS), 
+     * and after the last run also via deep copies.
      * It depends on our choice of NUM_ITERATIONS = FIELD_LENGTH*NUM_THREADS in {@link Game#Game}.
      * <p>
      * The {@link Game#start} method is called when parameters are given.
      * @param INITIAL_NUM_POINTS is amount of "ones" in the field.
-     * @param FIELD_LENGTH is length of each quadrant, which is smaller piece of global 2d array field.
+     * @param FIELD_LENGTH is length of each row of the global field, which has FIELD_LENGTH*NUM_THREADS rows
+     * divided into NUM_THREADS quadrants of FIELD_LENGTH rows each.
      * @param NUM_THREADS is amount of threads in the pool.  
      * @param BEFORE_TEST_RUNS is how many times we should run the test in a loop so that JVM optimizes it well enough.
      * 
      * @return timeDuration, i.e. time of the last call of {@link Game#start} in nano seconds.
      */
     static public long testFixedNumThreads(int INITIAL_NUM_POINTS, int FIELD_LENGTH, int NUM_THREADS, int BEFORE_TEST_RUNS) {
-        Game game = new Game(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS);
+        return testFixedNumThreads(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, BEFORE_TEST_RUNS, true);
+    }
+
+    /**
+     * The same as {@link GameTest#testFixedNumThreads(int, int, int, int)} with the kernel chosen explicitly.
+     * @param USE_ROW_KERNEL is true for the row kernel and false for the scalar per-cell rule.
+     * @return timeDuration, i.e. time of the last call of {@link Game#start} in nano seconds.
+     */
+    static public long testFixedNumThreads(int INITIAL_NUM_POINTS, int FIELD_LENGTH, int NUM_THREADS, int BEFORE_TEST_RUNS, boolean USE_ROW_KERNEL) {
+        Game game = new Game(INITIAL_NUM_POINTS, FIELD_LENGTH, NUM_THREADS, USE_ROW_KERNEL);
         long timeStart = 0, timeDuration = 0;
+        ArrayList<int[][]> dataBefore = game.getDeepCopyAllFields();
+        long hashBefore = game.getFieldHash();
+        
         for (int i = 0; i < BEFORE_TEST_RUNS; i++) {
 
-            ArrayList<int[][]> dataBefore = game.getDeepCopyAllFields();
-
             timeStart = System.nanoTime();
             game.start();
             timeDuration = System.nanoTime() - timeStart;
 
-            ArrayList<int[][]> dataAfter = game.getDeepCopyAllFields();
-
-            
-            assertTrue(allDataEquals(dataBefore, dataAfter));
+            assertEquals(hashBefore, game.getFieldHash());
         }
 
+        ArrayList<int[][]> dataAfter = game.getDeepCopyAllFields();
+        assertTrue(allDataEquals(dataBefore, dataAfter));
+
         return timeDuration;
     }
     